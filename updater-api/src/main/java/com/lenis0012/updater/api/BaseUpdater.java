@@ -12,7 +12,11 @@ import org.bukkit.plugin.Plugin;
 import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
 
@@ -22,6 +26,7 @@ public abstract class BaseUpdater implements Updater {
     protected final Plugin plugin;
     protected final JsonParser jsonParser;
     protected final File pluginFile;
+    private final Lock downloadLock = new ReentrantLock();
     protected String currentVersion;
     protected boolean snapshot;
     protected boolean enabled;
@@ -39,6 +44,7 @@ public abstract class BaseUpdater implements Updater {
         this.pluginFile = pluginFile;
         this.currentVersion = plugin.getDescription().getVersion();
         this.snapshot = currentVersion.contains("SNAPSHOT");
+        cleanStagedUpdate();
     }
 
     @Override
@@ -74,15 +80,64 @@ public abstract class BaseUpdater implements Updater {
 
         Bukkit.getUpdateFolderFile().mkdir();
         File destination = new File(Bukkit.getUpdateFolderFile(), pluginFile.getName());
+        File partial = StagedUpdateVerifier.partialFile(destination);
+        downloadLock.lock();
         try {
-            download(newVersion.getDownloadURL(), destination);
+            // Download next to the staged jar, so a failed download never touches it
+            MessageDigest digest = StagedUpdateVerifier.newDigest();
+            download(newVersion.getDownloadURL(), partial, digest);
+            newVerifier().stage(partial, destination, digest.digest(), newVersion);
             this.currentVersion = newVersion.getName();
             return null;
         } catch(IOException e) {
+            if(partial.exists() && !partial.delete()) {
+                log(Level.WARNING, "Failed to remove partial download " + partial.getName());
+            }
             return e.getMessage();
+        } finally {
+            downloadLock.unlock();
         }
     }
 
+    @Override
+    public boolean verifyStagedUpdate() {
+        if(!downloadLock.tryLock()) {
+            return true; // Download still in progress, jar isn't staged yet
+        }
+
+        try {
+            File staged = new File(Bukkit.getUpdateFolderFile(), pluginFile.getName());
+            if(!StagedUpdateVerifier.isStaged(staged)) {
+                return true;
+            }
+
+            return newVerifier().verify(staged);
+        } finally {
+            downloadLock.unlock();
+        }
+    }
+
+    /**
+     * Remove leftovers of earlier staged updates for this plugin.
+     * Bukkit only removes the jar when it swaps it in, and a crash can leave a partial download behind.
+     */
+    private void cleanStagedUpdate() {
+        File staged = new File(Bukkit.getUpdateFolderFile(), pluginFile.getName());
+        File manifest = StagedUpdateVerifier.manifestFile(staged);
+        File[] leftovers = staged.exists() ?
+                new File[] { StagedUpdateVerifier.partialFile(staged), StagedUpdateVerifier.partialFile(manifest) } :
+                new File[] { StagedUpdateVerifier.partialFile(staged), StagedUpdateVerifier.partialFile(manifest), manifest };
+        for(File file : leftovers) {
+            if(file.exists() && !file.delete()) {
+                log(Level.WARNING, "Failed to remove leftover update file " + file.getName());
+            }
+        }
+    }
+
+    private StagedUpdateVerifier newVerifier() {
+        return new StagedUpdateVerifier(Bukkit.getUpdateFolderFile(), plugin.getLogger());
+    }
+
     protected abstract void read();
 
     /**
@@ -191,12 +246,27 @@ public abstract class BaseUpdater implements Updater {
      * @throws IOException Error
      */
     protected void download(String downloadURL, File destination) throws IOException {
+        download(downloadURL, destination, null);
+    }
+
+    /**
+     * Download file from a URL into destination, hashing it on the fly.
+     *
+     * @param downloadURL URL to download from
+     * @param destination to put file at
+     * @param digest Digest to update with the downloaded bytes, or null
+     * @throws IOException Error
+     */
+    protected void download(String downloadURL, File destination, MessageDigest digest) throws IOException {
         log(Level.INFO, "Downloading file " + destination.getName() + "...");
         URL url = new URL(downloadURL);
         InputStream input = null;
         FileOutputStream output = null;
         try {
             input = url.openStream();
+            if(digest != null) {
+                input = new DigestInputStream(input, digest);
+            }
             output = new FileOutputStream(destination);
             byte[] buffer = new byte[1024];
             int length;
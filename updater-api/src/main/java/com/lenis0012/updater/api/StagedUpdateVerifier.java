@@ -0,0 +1,285 @@
+package com.lenis0012.updater.api;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stages downloaded jars in the update folder along with a manifest describing them,
+ * and verifies them against that manifest before bukkit swaps them in.
+ * Jars that fail verification are moved into a quarantine folder.
+ */
+public class StagedUpdateVerifier {
+    public static final String HASH_ALGORITHM = "SHA-256";
+    public static final String MANIFEST_SUFFIX = ".updater.json";
+    public static final String PARTIAL_SUFFIX = ".part";
+    public static final String QUARANTINE_FOLDER = "quarantine";
+
+    private final File updateFolder;
+    private final Logger logger;
+
+    public StagedUpdateVerifier(File updateFolder, Logger logger) {
+        this.updateFolder = updateFolder;
+        this.logger = logger;
+    }
+
+    /**
+     * Move a completed download into place and record its manifest.
+     * The jar is moved before the manifest, so an old manifest never describes the new jar.
+     *
+     * @param partial Completed download
+     * @param jar Destination in the update folder
+     * @param hash Hash of the download, see {@link #HASH_ALGORITHM}
+     * @param version Version that was downloaded
+     * @throws IOException If the download is not a valid plugin or can't be moved
+     */
+    public void stage(File partial, File jar, byte[] hash, Version version) throws IOException {
+        PluginDescriptionFile description = readDescription(partial);
+        if(description == null) {
+            throw new IOException("Downloaded file " + jar.getName() + " is not a valid plugin");
+        }
+
+        Files.move(partial.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("plugin", description.getName());
+        json.addProperty("version", description.getVersion());
+        json.addProperty("name", version.getName());
+        json.addProperty("hash", toHex(hash));
+        json.addProperty("size", jar.length());
+        json.addProperty("modified", jar.lastModified());
+
+        File manifest = manifestFile(jar);
+        File partialManifest = partialFile(manifest);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(partialManifest), "UTF-8");
+            writer.write(json.toString());
+            writer.close();
+            writer = null;
+            Files.move(partialManifest.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            // The jar itself is complete, it just can't be verified later
+            logger.log(Level.WARNING, "Failed to write manifest for " + jar.getName() + ", it won't be verified", e);
+            partialManifest.delete();
+            manifest.delete();
+        } finally {
+            if(writer != null) {
+                try {
+                    writer.close();
+                } catch(IOException e) {}
+            }
+        }
+    }
+
+    /**
+     * Check whether a jar was fully staged by us.
+     * Jars without a manifest were not staged by us, and jars with a partial download are still being written.
+     *
+     * @param jar Jar in the update folder
+     * @return True if jar can be verified
+     */
+    public static boolean isStaged(File jar) {
+        return jar.isFile() && manifestFile(jar).exists() && !partialFile(jar).exists();
+    }
+
+    /**
+     * Verify a staged jar, quarantining it when it's corrupt.
+     * A jar the manifest doesn't describe was put there by someone else and is left alone.
+     *
+     * @param jar Staged jar
+     * @return True if jar was valid or not ours, false if it was quarantined
+     */
+    public boolean verify(File jar) {
+        JsonObject manifest = readManifest(jar);
+        if(manifest == null) {
+            return true;
+        }
+        if(!describes(manifest, jar)) {
+            logger.log(Level.INFO, "Staged update " + jar.getName() + " was replaced since it was downloaded, not verifying it");
+            manifestFile(jar).delete();
+            return true;
+        }
+
+        String problem = findProblem(jar, manifest);
+        if(problem == null) {
+            return true;
+        }
+
+        logger.log(Level.WARNING, "Staged update " + jar.getName() + " is corrupt (" + problem + "), moving it to quarantine");
+        quarantine(jar);
+        return false;
+    }
+
+    private boolean describes(JsonObject manifest, File jar) {
+        return manifest.has("size") && manifest.has("modified")
+                && manifest.get("size").getAsLong() == jar.length()
+                && manifest.get("modified").getAsLong() == jar.lastModified();
+    }
+
+    private String findProblem(File jar, JsonObject manifest) {
+        if(!manifest.has("hash") || !manifest.has("plugin") || !manifest.has("version")) {
+            return "incomplete manifest";
+        }
+
+        try {
+            if(!toHex(hash(jar)).equalsIgnoreCase(manifest.get("hash").getAsString())) {
+                return "hash mismatch";
+            }
+        } catch(IOException e) {
+            logger.log(Level.WARNING, "Failed to hash staged update " + jar.getName(), e);
+            return "unreadable jar";
+        }
+
+        PluginDescriptionFile description = readDescription(jar);
+        if(description == null) {
+            return "invalid plugin.yml";
+        }
+        if(!description.getName().equals(manifest.get("plugin").getAsString())) {
+            return "plugin.yml name " + description.getName() + " doesn't match";
+        }
+        if(!description.getVersion().equals(manifest.get("version").getAsString())) {
+            return "plugin.yml version " + description.getVersion() + " doesn't match";
+        }
+
+        return null;
+    }
+
+    private JsonObject readManifest(File jar) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile(jar)), "UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            String line;
+            while((line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+
+            return new JsonParser().parse(builder.toString()).getAsJsonObject();
+        } catch(IOException | JsonParseException | IllegalStateException e) {
+            logger.log(Level.WARNING, "Failed to read manifest of staged update " + jar.getName(), e);
+            return null;
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(IOException e) {}
+            }
+        }
+    }
+
+    private PluginDescriptionFile readDescription(File jar) {
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(jar);
+            JarEntry entry = jarFile.getJarEntry("plugin.yml");
+            if(entry == null) {
+                logger.log(Level.WARNING, "No plugin.yml found in " + jar.getName());
+                return null;
+            }
+
+            return new PluginDescriptionFile(jarFile.getInputStream(entry));
+        } catch(IOException | InvalidDescriptionException | YAMLException e) {
+            logger.log(Level.WARNING, "Failed to read plugin.yml from " + jar.getName(), e);
+            return null;
+        } finally {
+            if(jarFile != null) {
+                try {
+                    jarFile.close();
+                } catch(IOException e) {}
+            }
+        }
+    }
+
+    private void quarantine(File jar) {
+        File folder = new File(updateFolder, QUARANTINE_FOLDER);
+        folder.mkdir();
+        moveOrDelete(jar, folder);
+        moveOrDelete(manifestFile(jar), folder);
+    }
+
+    /**
+     * Move a file into the quarantine folder, deleting it if that fails.
+     * A corrupt jar must never be left behind for bukkit to swap in.
+     *
+     * @param file File to move
+     * @param folder Quarantine folder
+     */
+    private void moveOrDelete(File file, File folder) {
+        if(!file.exists()) {
+            return;
+        }
+
+        try {
+            Files.move(file.toPath(), new File(folder, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            if(file.delete()) {
+                logger.log(Level.WARNING, "Failed to move " + file.getName() + " to quarantine, deleted it instead", e);
+            } else {
+                logger.log(Level.SEVERE, "Failed to move or delete " + file.getName() + ", remove it before restarting", e);
+            }
+        }
+    }
+
+    static File manifestFile(File jar) {
+        return new File(jar.getParentFile(), jar.getName() + MANIFEST_SUFFIX);
+    }
+
+    static File partialFile(File file) {
+        return new File(file.getParentFile(), file.getName() + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Create a new digest for hashing staged jars.
+     *
+     * @return Message digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+        }
+    }
+
+    private static byte[] hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            byte[] buffer = new byte[8192];
+            int length;
+            while((length = input.read(buffer, 0, buffer.length)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+            return digest.digest();
+        } finally {
+            if(input != null) {
+                try {
+                    input.close();
+                } catch(IOException e) {}
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
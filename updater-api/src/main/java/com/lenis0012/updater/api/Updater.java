@@ -32,6 +32,17 @@ public interface Updater {
      */
     String downloadVersion();
 
+    /**
+     * Verify the jar this plugin staged in the update folder.
+     * A corrupt jar is moved into a quarantine folder so it won't be swapped in on restart.
+     * Call this before the server restarts, for example in onDisable.
+     *
+     * @return False if the staged jar was quarantined, true otherwise
+     */
+    default boolean verifyStagedUpdate() {
+        return true;
+    }
+
     /**
      * Whether or not this is the bukkit updater.
      *
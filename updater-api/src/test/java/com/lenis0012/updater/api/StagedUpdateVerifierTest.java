@@ -0,0 +1,133 @@
+package com.lenis0012.updater.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class StagedUpdateVerifierTest {
+    private File updateFolder;
+    private StagedUpdateVerifier verifier;
+
+    @Before
+    public void setUp() throws IOException {
+        this.updateFolder = Files.createTempDirectory("update").toFile();
+        this.verifier = new StagedUpdateVerifier(updateFolder, Logger.getLogger(getClass().getName()));
+    }
+
+    @After
+    public void tearDown() {
+        delete(updateFolder);
+    }
+
+    @Test
+    public void acceptsFreeTextVersionNames() throws IOException {
+        String[] names = { "LoginSecurity-2.1.jar", "v2.1 (MC 1.8)", "2.1 [beta]", "2.1", "LoginSecurity v2.1" };
+        for(String name : names) {
+            File jar = stage("LoginSecurity.jar", "name: LoginSecurity\nversion: 2.1.0\nmain: a.B\n", name);
+            assertTrue(name, verifier.verify(jar));
+            assertTrue(name, jar.exists());
+        }
+    }
+
+    @Test
+    public void quarantinesCorruptJar() throws IOException {
+        File jar = stage("LoginSecurity.jar", "name: LoginSecurity\nversion: 2.1\nmain: a.B\n", "2.1");
+        long modified = jar.lastModified();
+        RandomAccessFile file = new RandomAccessFile(jar, "rw");
+        try {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0xFF);
+        } finally {
+            file.close();
+        }
+        jar.setLastModified(modified);
+
+        assertFalse(verifier.verify(jar));
+        File quarantine = new File(updateFolder, StagedUpdateVerifier.QUARANTINE_FOLDER);
+        assertFalse(jar.exists());
+        assertFalse(StagedUpdateVerifier.manifestFile(jar).exists());
+        assertTrue(new File(quarantine, jar.getName()).exists());
+        assertTrue(new File(quarantine, jar.getName() + StagedUpdateVerifier.MANIFEST_SUFFIX).exists());
+    }
+
+    @Test
+    public void ignoresJarReplacedByHand() throws IOException {
+        File jar = stage("LoginSecurity.jar", "name: LoginSecurity\nversion: 2.1\nmain: a.B\n", "2.1");
+        writeJar(jar, "name: LoginSecurity\nversion: 2.2-SNAPSHOT\nmain: a.B\nauthor: admin\n");
+
+        assertTrue(verifier.verify(jar));
+        assertTrue(jar.exists());
+        assertFalse(StagedUpdateVerifier.manifestFile(jar).exists());
+    }
+
+    @Test
+    public void rejectsDownloadWithoutValidPluginYml() throws IOException {
+        File jar = new File(updateFolder, "LoginSecurity.jar");
+        File partial = StagedUpdateVerifier.partialFile(jar);
+        writeJar(partial, "name: [broken\n");
+        try {
+            verifier.stage(partial, jar, hash(partial), new Version("2.1", ReleaseType.RELEASE, "1.8", null));
+            fail("Invalid plugin.yml was staged");
+        } catch(IOException e) {
+            assertFalse(jar.exists());
+            assertFalse(StagedUpdateVerifier.manifestFile(jar).exists());
+        }
+    }
+
+    @Test
+    public void skipsJarWithPartialDownload() throws IOException {
+        File jar = stage("LoginSecurity.jar", "name: LoginSecurity\nversion: 2.1\nmain: a.B\n", "2.1");
+        assertTrue(StagedUpdateVerifier.isStaged(jar));
+        assertTrue(StagedUpdateVerifier.partialFile(jar).createNewFile());
+        assertFalse(StagedUpdateVerifier.isStaged(jar));
+    }
+
+    private File stage(String fileName, String pluginYml, String versionName) throws IOException {
+        File jar = new File(updateFolder, fileName);
+        File partial = StagedUpdateVerifier.partialFile(jar);
+        writeJar(partial, pluginYml);
+        verifier.stage(partial, jar, hash(partial), new Version(versionName, ReleaseType.RELEASE, "1.8", null));
+        return jar;
+    }
+
+    private void writeJar(File file, String pluginYml) throws IOException {
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(file));
+        try {
+            output.putNextEntry(new JarEntry("plugin.yml"));
+            output.write(pluginYml.getBytes("UTF-8"));
+            output.closeEntry();
+        } finally {
+            output.close();
+        }
+    }
+
+    private byte[] hash(File file) throws IOException {
+        MessageDigest digest = StagedUpdateVerifier.newDigest();
+        digest.update(Files.readAllBytes(file.toPath()));
+        return digest.digest();
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}